@@ -0,0 +1,199 @@
+package heliumevents;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micronaut.context.annotation.Value;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+/**
+ * Switches a hotspot index into bulk-load settings (no refresh, no replicas) while its history is 
+ * backfilled, and back again once the trawl has caught up.
+ * 
+ * The original settings are kept in a 'backfill-[index]' doc in the metadata index before anything 
+ * is changed, and only removed once the backfill has caught up. If a run stops or dies part way 
+ * through a backfill, the index is left in bulk-load settings - putting the replicas back only to drop 
+ * them again on the next run would make ES copy the whole index each time. The doc is still there the 
+ * next time the hotspot is trawled, so the backfill carries on and the original settings are put back 
+ * at the end. At startup, the docs for hotspots that will not be backfilled any more are swept up and 
+ * their settings put back straight away.
+ */
+@Singleton
+public class BackfillSettings {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackfillSettings.class);
+
+    private static final String INDEX = "metadataindex";
+    private static final String REPLICAS = "number_of_replicas";
+    private static final String REFRESH = "refresh_interval";
+    private static final String TRANSLOG_THRESHOLD = "translog.flush_threshold_size";
+
+    @Inject
+    private ElasticSearchApi esApi;
+
+    @Inject
+    private LeaseManager leaseManager;
+
+    @Value("${micronaut.application.BACKFILL_MODE:false}")
+    boolean enabled;
+
+    /** e.g. 1gb - left at the ES default when empty */
+    @Value("${micronaut.application.BACKFILL_TRANSLOG_FLUSH_THRESHOLD:}")
+    String translogFlushThreshold;
+
+    @Value("${micronaut.application.BACKFILL_FORCE_MERGE:false}")
+    boolean forceMerge;
+
+    private final Set<String> active = new HashSet<>();
+
+    /**
+     * Put back the original settings of every index left in bulk-load settings whose backfill will not be 
+     * resumed by this run - because its hotspot is no longer trawled, or backfill mode has been switched 
+     * off. Indexes whose hotspot is leased by another instance are left to that instance.
+     * @param hotspots the hotspots this run will trawl
+     */
+    public void sweep(Collection<String> hotspots) throws ElasticSearchApiException {
+        JsonObject query = new JsonObject();
+        query.addProperty("size", 10000);
+        JsonObject term = new JsonObject();
+        term.addProperty("type.keyword", "backfill");
+        JsonObject match = new JsonObject();
+        match.add("term", term);
+        query.add("query", match);
+
+        for(JsonElement hit : esApi.search(INDEX, query.toString())) {
+            JsonObject marker = hit.getAsJsonObject().getAsJsonObject("_source");
+            String hotspot = marker.get("hotspot").getAsString();
+            String indexName = marker.get("index").getAsString();
+
+            if(enabled && hotspots.contains(hotspot)) {
+                logger.info("Interrupted backfill of {} will be resumed", indexName);
+            }
+            else if(leaseManager.isLeasedElsewhere(hotspot)) {
+                logger.info("Interrupted backfill of {} is leased by another instance", indexName);
+            }
+            else {
+                logger.info("Interrupted backfill of {} will not be resumed", indexName);
+                restore(indexName);
+            }
+        }
+    }
+
+    /**
+     * Put the index into bulk-load settings if it is about to be backfilled - either for the first time, 
+     * or because a previous run was interrupted while backfilling it. The current settings are recorded 
+     * first, unless the interrupted run already did.
+     * @param hotspot the address of the hotspot the index belongs to
+     * @param firstBackfill whether the hotspot's history is about to be backfilled for the first time
+     */
+    public void begin(String hotspot, String indexName, boolean firstBackfill) throws ElasticSearchApiException {
+        boolean interrupted = null != esApi.getDoc(INDEX, markerId(indexName));
+        if(interrupted) active.add(indexName);
+
+        if( ! enabled) {
+            // backfill mode has been switched off since the interrupted run, so just recover
+            if(interrupted) {
+                active.remove(indexName);
+                restore(indexName);
+            }
+            return;
+        }
+        if( ! firstBackfill && ! interrupted) return;
+
+        if(interrupted) {
+            logger.info("Resuming interrupted backfill of {}", indexName);
+        }
+        else {
+            JsonObject current = JsonParser.parseString(esApi.getRaw("/" + indexName + "/_settings"))
+                .getAsJsonObject()
+                .getAsJsonObject(indexName)
+                .getAsJsonObject("settings")
+                .getAsJsonObject("index");
+            JsonObject original = new JsonObject();
+            original.add(REPLICAS, valueOf(current, REPLICAS));
+            original.add(REFRESH, valueOf(current, REFRESH));
+            original.add(TRANSLOG_THRESHOLD, translogThresholdOf(current));
+            JsonObject marker = new JsonObject();
+            marker.addProperty("type", "backfill");
+            marker.addProperty("hotspot", hotspot);
+            marker.addProperty("index", indexName);
+            marker.add("settings", original);
+            esApi.putDoc(INDEX, markerId(indexName), marker.toString());
+            active.add(indexName);
+        }
+
+        JsonObject settings = new JsonObject();
+        settings.addProperty(REFRESH, "-1");
+        settings.addProperty(REPLICAS, 0);
+        if( ! translogFlushThreshold.isBlank()) settings.addProperty(TRANSLOG_THRESHOLD, translogFlushThreshold);
+        putSettings(indexName, settings);
+        logger.info("Backfilling {} with refresh disabled and no replicas", indexName);
+    }
+
+    /**
+     * Put the original settings back once the backfill is over, if the index is in bulk-load settings
+     * @param caughtUp whether the backfill reached the present. If it did, the original settings are put back 
+     * and the index is force merged if configured. If not, the index is left in bulk-load settings - with no 
+     * replicas - until the backfill is resumed, or until a later run sweeps it up.
+     */
+    public void end(String indexName, boolean caughtUp) throws ElasticSearchApiException {
+        if( ! active.remove(indexName)) return;
+
+        if( ! caughtUp) {
+            logger.info("Leaving {} in bulk-load settings until its backfill is resumed", indexName);
+            return;
+        }
+        restore(indexName);
+
+        if(caughtUp && forceMerge) {
+            logger.info("Force merging {}", indexName);
+            esApi.postRaw("/" + indexName + "/_forcemerge?max_num_segments=1");
+        }
+    }
+
+    /**
+     * Leave the index alone - another instance has taken the hotspot over and is carrying on the backfill
+     */
+    public void abandon(String indexName) {
+        active.remove(indexName);
+    }
+
+    private void restore(String indexName) throws ElasticSearchApiException {
+        JsonObject marker = esApi.getDoc(INDEX, markerId(indexName));
+        if(null == marker) return;
+
+        putSettings(indexName, marker.getAsJsonObject("settings"));
+        esApi.deleteDoc(INDEX, markerId(indexName));
+        logger.info("Restored settings of {}", indexName);
+    }
+
+    private void putSettings(String indexName, JsonObject settings) throws ElasticSearchApiException {
+        JsonObject payload = new JsonObject();
+        payload.add("index", settings);
+        esApi.putDocRaw("/" + indexName + "/_settings", payload.toString());
+    }
+
+    private static JsonElement valueOf(JsonObject settings, String name) {
+        // settings that were never set come back as null, which resets them to the ES default
+        return settings.has(name) ? settings.get(name) : JsonNull.INSTANCE;
+    }
+
+    private static JsonElement translogThresholdOf(JsonObject settings) {
+        if( ! settings.has("translog")) return JsonNull.INSTANCE;
+        return valueOf(settings.getAsJsonObject("translog"), "flush_threshold_size");
+    }
+
+    private static String markerId(String indexName) {
+        return "backfill-" + indexName;
+    }
+}
@@ -2,15 +2,22 @@ package heliumevents;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.annotation.PostConstruct;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
 
+import org.apache.hc.client5.http.classic.methods.HttpDelete;
 import org.apache.hc.client5.http.classic.methods.HttpGet;
 import org.apache.hc.client5.http.classic.methods.HttpHead;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.apache.hc.client5.http.classic.methods.HttpPut;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
@@ -78,6 +85,91 @@ public class ElasticSearchApi {
         }
     }
 
+    /**
+     * Send a batch of actions to the bulk API in a single request
+     * @param ndjson action and source lines, each terminated by a newline
+     * @return the bulk response, which reports the outcome of each action in 'items'
+     * @throws ElasticSearchApiException if the request as a whole failed
+     */
+    public JsonObject bulk(String ndjson) throws ElasticSearchApiException {
+
+        try (CloseableHttpClient client = HttpClients.createDefault()) {
+            HttpPost post = new HttpPost(BASE+"/_bulk");
+            post.setHeader("Content-Type", "application/x-ndjson");
+            post.setHeader("Accept", "application/json");
+            post.setEntity(new StringEntity(ndjson, Charset.forName("utf-8")));
+            try(CloseableHttpResponse resp = client.execute(post)) {
+                String body = EntityUtils.toString(resp.getEntity());
+                if(resp.getCode() != HttpStatus.SC_OK) {
+                    throw new ElasticSearchApiException(resp.getReasonPhrase() + ":"+resp.getCode() + "\nDetails\n" + body);
+                }
+                return JsonParser.parseString(body).getAsJsonObject();
+            }
+        }
+        catch(IOException | ParseException | JsonSyntaxException e) {
+            throw new ElasticSearchApiException("Could not POST bulk request", e);
+        }
+    }
+
+    public String postRaw(String relativeUrl) throws ElasticSearchApiException {
+        
+        try (CloseableHttpClient client = HttpClients.createDefault()) {
+            HttpPost post = new HttpPost(BASE+relativeUrl);
+            post.setHeader("Accept", "application/json");
+            try(CloseableHttpResponse resp = client.execute(post)) {
+                String body = EntityUtils.toString(resp.getEntity());
+                if(resp.getCode() != HttpStatus.SC_OK) {
+                    throw new ElasticSearchApiException(resp.getReasonPhrase() + ":"+resp.getCode() + "\nDetails\n" + body);
+                }
+                return body;
+            }
+        }
+        catch(IOException | ParseException e) {
+            throw new ElasticSearchApiException("Could not POST "+relativeUrl, e);
+        }
+    }
+
+    /**
+     * Run a search against an index. An index that does not exist yet simply has no hits.
+     * @param query the search request body
+     * @return the hits, each with its _id and _source
+     */
+    public JsonArray search(String indexName, String query) throws ElasticSearchApiException {
+
+        try (CloseableHttpClient client = HttpClients.createDefault()) {
+            HttpPost post = new HttpPost(BASE+"/"+indexName+"/_search?ignore_unavailable=true");
+            post.setHeader("Content-Type", "application/json");
+            post.setHeader("Accept", "application/json");
+            post.setEntity(new StringEntity(query, Charset.forName("utf-8")));
+            try(CloseableHttpResponse resp = client.execute(post)) {
+                String body = EntityUtils.toString(resp.getEntity());
+                if(resp.getCode() != HttpStatus.SC_OK) {
+                    throw new ElasticSearchApiException(resp.getReasonPhrase() + ":"+resp.getCode() + "\nDetails\n" + body);
+                }
+                return JsonParser.parseString(body).getAsJsonObject().getAsJsonObject("hits").getAsJsonArray("hits");
+            }
+        }
+        catch(IOException | ParseException | JsonSyntaxException e) {
+            throw new ElasticSearchApiException("Could not search "+indexName, e);
+        }
+    }
+
+    public void deleteDoc(String indexName, String docIdentifier) throws ElasticSearchApiException {
+        
+        try (CloseableHttpClient client = HttpClients.createDefault()) {
+            String relativeUrl = String.format(elasticSearchUrlTemplate, indexName, docIdentifier);
+            HttpDelete delete = new HttpDelete(BASE+relativeUrl);
+            try (CloseableHttpResponse response = client.execute(delete)) {
+                if(response.getCode() != HttpStatus.SC_OK && response.getCode() != HttpStatus.SC_NOT_FOUND) {
+                    throw new ElasticSearchApiException("Bad code: "+response.getCode());
+                }
+            }
+        }
+        catch(IOException e) {
+            throw new ElasticSearchApiException("Could not DELETE "+indexName+":"+docIdentifier, e);
+        }
+    }
+
     public JsonObject getDoc(String indexName, String docIdentifier) throws ElasticSearchApiException {
         
         try (CloseableHttpClient client = HttpClients.createDefault()) {
@@ -96,6 +188,94 @@ public class ElasticSearchApi {
         return null;
     }
 
+    /**
+     * Fetch a doc along with the sequence number and primary term needed to update it conditionally
+     * @return the full GET response (_source, _seq_no, _primary_term), or null if there is no such doc
+     */
+    public JsonObject getVersionedDoc(String indexName, String docIdentifier) throws ElasticSearchApiException {
+        
+        try (CloseableHttpClient client = HttpClients.createDefault()) {
+            String relativeUrl = String.format(elasticSearchUrlTemplate, indexName, docIdentifier);
+            HttpGet get = new HttpGet(BASE+relativeUrl);
+            try (CloseableHttpResponse response = client.execute(get)) {
+                if(response.getCode() == HttpStatus.SC_NOT_FOUND) return null;
+                if(response.getCode() != HttpStatus.SC_OK) throw new ElasticSearchApiException("Bad code: "+response.getCode());
+                return JsonParser.parseString(EntityUtils.toString(response.getEntity())).getAsJsonObject();
+            }
+        }
+        catch(IOException | ParseException | JsonSyntaxException e) {
+            throw new ElasticSearchApiException("Could not fetch "+indexName+":"+docIdentifier, e);
+        }
+    }
+
+    /**
+     * Fetch several docs in one request, each with the sequence number and primary term needed to update it conditionally
+     * @return the docs that exist, keyed by identifier, each in the same form as {@link #getVersionedDoc(String, String)}
+     */
+    public Map<String, JsonObject> getVersionedDocs(String indexName, Collection<String> docIdentifiers) throws ElasticSearchApiException {
+
+        Map<String, JsonObject> found = new HashMap<>();
+        if(docIdentifiers.isEmpty()) return found;
+
+        JsonArray ids = new JsonArray();
+        docIdentifiers.forEach(ids::add);
+        JsonObject request = new JsonObject();
+        request.add("ids", ids);
+
+        try (CloseableHttpClient client = HttpClients.createDefault()) {
+            HttpPost post = new HttpPost(BASE+"/"+indexName+"/_mget");
+            post.setHeader("Content-Type", "application/json");
+            post.setHeader("Accept", "application/json");
+            post.setEntity(new StringEntity(request.toString(), Charset.forName("utf-8")));
+            try(CloseableHttpResponse resp = client.execute(post)) {
+                String body = EntityUtils.toString(resp.getEntity());
+                if(resp.getCode() != HttpStatus.SC_OK) {
+                    throw new ElasticSearchApiException(resp.getReasonPhrase() + ":"+resp.getCode() + "\nDetails\n" + body);
+                }
+                for(JsonElement doc : JsonParser.parseString(body).getAsJsonObject().getAsJsonArray("docs")) {
+                    JsonObject result = doc.getAsJsonObject();
+                    if(result.has("found") && result.get("found").getAsBoolean()) {
+                        found.put(result.get("_id").getAsString(), result);
+                    }
+                }
+                return found;
+            }
+        }
+        catch(IOException | ParseException | JsonSyntaxException e) {
+            throw new ElasticSearchApiException("Could not fetch "+docIdentifiers.size()+" docs from "+indexName, e);
+        }
+    }
+
+    /**
+     * Write a doc using optimistic concurrency control. With no sequence number the doc is only 
+     * created if it does not exist yet, otherwise it is only written if nobody else has changed it 
+     * since the given sequence number and primary term were read.
+     * @return the write response (with the new _seq_no and _primary_term), or null if somebody else got there first
+     */
+    public JsonObject putDocConditionally(String indexName, String docIdentifier, String docStr, Long seqNo, Long primaryTerm) throws ElasticSearchApiException {
+        
+        try (CloseableHttpClient client = HttpClients.createDefault()) {
+            String url = null == seqNo
+                ? String.format("/%s/_create/%s", indexName, docIdentifier)
+                : String.format(elasticSearchUrlTemplate + "?if_seq_no=%d&if_primary_term=%d", indexName, docIdentifier, seqNo, primaryTerm);
+            HttpPut put = new HttpPut(BASE+url);
+            put.setHeader("Content-Type", "application/json");
+            put.setHeader("Accept", "application/json");
+            put.setEntity(new StringEntity(docStr, Charset.forName("utf-8")));
+            try(CloseableHttpResponse resp = client.execute(put)) {
+                if(resp.getCode() == HttpStatus.SC_CONFLICT) return null;
+                String body = EntityUtils.toString(resp.getEntity());
+                if(resp.getCode() != HttpStatus.SC_CREATED && resp.getCode() != HttpStatus.SC_OK) {
+                    throw new ElasticSearchApiException(resp.getReasonPhrase() + ":"+resp.getCode() + "\nDetails\n" + body);
+                }
+                return JsonParser.parseString(body).getAsJsonObject();
+            }
+        }
+        catch(IOException | ParseException | JsonSyntaxException e) {
+            throw new ElasticSearchApiException("Could not PUT "+indexName+":"+docIdentifier, e);
+        }
+    }
+
     public String getRaw(String relativeUrl) throws ElasticSearchApiException {
         try (CloseableHttpClient client = HttpClients.createDefault()) {
             HttpGet get = new HttpGet(BASE+relativeUrl);
@@ -0,0 +1,140 @@
+package heliumevents;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+/**
+ * Writes transactions to ElasticSearch using the bulk API. Each transaction is sent as a 'create'
+ * action, so ES rejects the ones it already has (409) and we can count them as duplicates without
+ * a HEAD request per document.
+ * 
+ * Writes are held in memory until they are flushed, and then sent in batches of ES_BULK_SIZE, so that 
+ * a partial day can be discarded without any of it reaching ES.
+ */
+@Singleton
+@Requires(property = "micronaut.application.ES_SINK", value = "true", defaultValue = "true")
+public class ElasticSearchSink implements TransactionSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(ElasticSearchSink.class);
+
+    @Inject
+    ElasticSearchApi esApi;
+
+    @Value("${micronaut.application.ES_BULK_SIZE:500}")
+    int bulkSize;
+
+    @Value("${micronaut.application.ES_BULK_RETRIES:5}")
+    int maxRetries;
+
+    @Value("${micronaut.application.ES_BULK_BACKOFF_MS:1000}")
+    long initialBackoffMillis;
+
+    private final Gson gson = new Gson();
+
+    /** action and source lines for each queued doc */
+    private List<String> queued = new ArrayList<>();
+
+    @Override
+    public String getName() {
+        return "elasticsearch";
+    }
+
+    @Override
+    public void write(String indexName, String identifier, JsonObject doc) throws SinkException {
+        JsonObject meta = new JsonObject();
+        meta.addProperty("_index", indexName);
+        meta.addProperty("_id", identifier);
+        JsonObject action = new JsonObject();
+        action.add("create", meta);
+
+        queued.add(gson.toJson(action) + '\n' + gson.toJson(doc) + '\n');
+    }
+
+    @Override
+    public Stats flush() throws SinkException {
+        List<String> toSend = queued;
+        queued = new ArrayList<>();
+        Stats acknowledged = new Stats();
+        for(int start = 0; start < toSend.size(); start += bulkSize) {
+            acknowledged.add(sendBatch(toSend.subList(start, Math.min(start + bulkSize, toSend.size()))));
+        }
+        return acknowledged;
+    }
+
+    @Override
+    public void discard() {
+        queued = new ArrayList<>();
+    }
+
+    /**
+     * Send a batch of docs, retrying with backoff the ones ES rejects for the time being (429 when it is 
+     * overloaded, or a 5xx)
+     * @return counts for the batch, once every doc in it is accounted for
+     */
+    private Stats sendBatch(List<String> toSend) throws SinkException {
+        Stats sent = new Stats();
+        long backoff = initialBackoffMillis;
+
+        for(int attempt = 0; ; attempt++) {
+            logger.debug("Sending bulk request with {} docs", toSend.size());
+            List<String> rejected = new ArrayList<>();
+            String lastRejection = null;
+            try {
+                JsonArray items = esApi.bulk(String.join("", toSend)).getAsJsonArray("items");
+                for(int i=0; i < items.size(); i++) {
+                    JsonObject result = items.get(i).getAsJsonObject().getAsJsonObject("create");
+                    int status = result.get("status").getAsInt();
+                    if(status == 201) {
+                        sent.incrementNewDocs();
+                    }
+                    else if(status == 409) {
+                        sent.incrementDuplicateDocs();
+                    }
+                    else if(status == 429 || status >= 500) {
+                        rejected.add(toSend.get(i));
+                        lastRejection = status + (result.has("error") ? " " + result.get("error") : "");
+                    }
+                    else {
+                        throw new SinkException("Could not index "+result.get("_id").getAsString()+": "+status
+                            + (result.has("error") ? "\nDetails\n" + result.get("error") : ""));
+                    }
+                }
+            }
+            catch(ElasticSearchApiException esex) {
+                // the request as a whole failed, so none of it can be assumed to have landed
+                rejected = toSend;
+                lastRejection = esex.getMessage();
+            }
+
+            if(rejected.isEmpty()) break;
+            if(attempt >= maxRetries) {
+                throw new SinkException(rejected.size()+" docs still rejected after "+maxRetries+" retries: "+lastRejection);
+            }
+
+            logger.warn("{} docs rejected ({}), retrying in {}ms", rejected.size(), lastRejection, backoff);
+            try {
+                Thread.sleep(backoff);
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SinkException("Interrupted while retrying rejected docs", e);
+            }
+            backoff *= 2;
+            toSend = rejected;
+        }
+
+        return sent;
+    }
+}
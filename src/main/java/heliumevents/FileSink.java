@@ -0,0 +1,278 @@
+package heliumevents;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import jakarta.inject.Singleton;
+
+/**
+ * Writes transactions to gzipped NDJSON files on local disk, ready to be bulk loaded elsewhere.
+ * There is one file per index at a time, rolled over once it reaches the configured size. At most 
+ * FILE_SINK_MAX_OPEN_FILES are open at once - the least recently written is completed to make room. Files
+ * are written with a '.part' suffix which is only dropped when the file is complete, so anything
+ * without the suffix is safe to pick up. '.part' files left behind by a run that died are completed 
+ * at startup, as the days in them may already have been checkpointed.
+ * 
+ * Writes are held in memory until they are flushed, so that a partial day can be discarded without 
+ * any of it reaching the files.
+ * 
+ * The live head is trawled over and over, so the hashes of recently written transactions are kept in 
+ * a bounded LRU set and transactions that have already been written are skipped and counted as known.
+ * That set only lives as long as the process, and each run starts by fetching its last checkpointed 
+ * days again, so the same transaction can appear in the files more than once. Each line is just the 
+ * patched transaction - there is no bulk action or _id line - so consumers must dedupe on its 'hash', 
+ * e.g. by using it as the _id when loading into ES.
+ */
+@Singleton
+@Requires(property = "micronaut.application.FILE_SINK", value = "true")
+public class FileSink implements TransactionSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileSink.class);
+
+    private static final String SUFFIX = ".ndjson.gz";
+    private static final String PART_SUFFIX = ".part";
+
+    @Value("${micronaut.application.FILE_SINK_DIR:export}")
+    String directory;
+
+    @Value("${micronaut.application.FILE_SINK_ROLL_MB:256}")
+    long rollMegabytes;
+
+    @Value("${micronaut.application.FILE_SINK_BUFFER_KB:1024}")
+    int bufferKilobytes;
+
+    @Value("${micronaut.application.FILE_SINK_DEDUPE_SIZE:100000}")
+    int dedupeSize;
+
+    @Value("${micronaut.application.FILE_SINK_MAX_OPEN_FILES:16}")
+    int maxOpenFiles;
+
+    private final Gson gson = new Gson();
+
+    /** open files by index, in access order so the least recently written can be completed first */
+    private final Map<String, RollingFile> files = new LinkedHashMap<>(16, 0.75f, true);
+
+    private List<String[]> queued = new ArrayList<>();
+
+    /** hashes of recently written transactions, in access order */
+    private Map<String, Boolean> written;
+
+    private int sequence;
+
+    @PostConstruct
+    void setup() throws IOException {
+        written = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > dedupeSize;
+            }
+        };
+
+        Files.createDirectories(Paths.get(directory));
+        logger.info("Writing transactions to {}", Paths.get(directory).toAbsolutePath());
+
+        try(DirectoryStream<Path> parts = Files.newDirectoryStream(Paths.get(directory), "*" + SUFFIX + PART_SUFFIX)) {
+            for(Path part : parts) recover(part);
+        }
+    }
+
+    /**
+     * Complete a '.part' file left behind by a run that died. Everything up to the last flush made it to 
+     * disk (sync flushed), but the gzip trailer is missing, so the file is rewritten as a complete gzip. 
+     * Anything after the last complete line was written after the last flush, and is dropped.
+     */
+    void recover(Path part) throws IOException {
+        String name = part.getFileName().toString();
+        Path completePath = part.resolveSibling(name.substring(0, name.length() - PART_SUFFIX.length()));
+        Path recovering = part.resolveSibling(name + ".recovering");
+
+        long bytesRecovered = 0;
+        try(InputStream in = new GZIPInputStream(Files.newInputStream(part));
+            OutputStream out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(recovering), bufferKilobytes * 1024))) {
+
+            ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            try {
+                int read;
+                while((read = in.read(buffer)) != -1) {
+                    int lastNewline = -1;
+                    for(int i = read - 1; i >= 0; i--) {
+                        if(buffer[i] == '\n') {
+                            lastNewline = i;
+                            break;
+                        }
+                    }
+                    if(lastNewline < 0) {
+                        partialLine.write(buffer, 0, read);
+                        continue;
+                    }
+                    partialLine.writeTo(out);
+                    out.write(buffer, 0, lastNewline + 1);
+                    bytesRecovered += partialLine.size() + lastNewline + 1;
+                    partialLine.reset();
+                    partialLine.write(buffer, lastNewline + 1, read - lastNewline - 1);
+                }
+            }
+            catch(EOFException | ZipException e) {
+                // expected - the stream stops at the last sync flush, without a trailer
+            }
+        }
+        catch(EOFException e) {
+            // died before even the gzip header was written
+            logger.info("Removing empty {}", part);
+            Files.deleteIfExists(recovering);
+            Files.delete(part);
+            return;
+        }
+
+        Files.move(recovering, completePath, StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(part);
+        logger.info("Recovered {} ({} bytes uncompressed)", completePath, bytesRecovered);
+    }
+
+    @Override
+    public String getName() {
+        return "file";
+    }
+
+    @Override
+    public void write(String indexName, String identifier, JsonObject doc) throws SinkException {
+        queued.add(new String[] { indexName, identifier, gson.toJson(doc) });
+    }
+
+    @Override
+    public Stats flush() throws SinkException {
+        Stats acknowledged = new Stats();
+        List<String[]> toWrite = queued;
+        queued = new ArrayList<>();
+        try {
+            for(String[] entry : toWrite) {
+                // get() refreshes the entry, so hashes that keep coming back stay in the set
+                if(null != written.get(entry[0] + ":" + entry[1])) {
+                    acknowledged.incrementDuplicateDocs();
+                    continue;
+                }
+                write(entry[0], entry[2]);
+                written.put(entry[0] + ":" + entry[1], Boolean.TRUE);
+                acknowledged.incrementNewDocs();
+            }
+            // only the files written to in this flush - the rest have nothing new
+            for(RollingFile file : files.values()) {
+                if(file.dirty) file.sync();
+            }
+        }
+        catch(IOException e) {
+            throw new SinkException("Could not write to "+directory, e);
+        }
+        return acknowledged;
+    }
+
+    @Override
+    public void discard() {
+        queued = new ArrayList<>();
+    }
+
+    private void write(String indexName, String json) throws IOException {
+        RollingFile file = files.get(indexName);
+        if(null == file) {
+            if(files.size() >= maxOpenFiles) {
+                String leastRecent = files.keySet().iterator().next();
+                files.remove(leastRecent).complete();
+            }
+            file = new RollingFile(indexName);
+            files.put(indexName, file);
+        }
+        file.write(json);
+
+        if(file.bytesWritten >= rollMegabytes * 1024 * 1024) {
+            files.remove(indexName);
+            file.complete();
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        for(RollingFile file : files.values()) {
+            try {
+                file.complete();
+            }
+            catch(IOException e) {
+                logger.error("Could not complete {}", file.partPath, e);
+            }
+        }
+        files.clear();
+    }
+
+    private class RollingFile {
+
+        private final Path partPath;
+        private final Path completePath;
+        private final FileOutputStream fileStream;
+        private final GZIPOutputStream out;
+        private long bytesWritten;
+        private boolean dirty;
+
+        RollingFile(String indexName) throws IOException {
+            String name = indexName + "-" + new DateTime().toString("yyyyMMdd'T'HHmmss") + "-" + (sequence++) + SUFFIX;
+            completePath = Paths.get(directory, name);
+            partPath = Paths.get(directory, name + PART_SUFFIX);
+            fileStream = new FileOutputStream(partPath.toFile());
+            // sync flush so that flush() pushes out everything written so far, not just whole deflate blocks
+            out = new GZIPOutputStream(new BufferedOutputStream(fileStream, bufferKilobytes * 1024), 64 * 1024, true);
+            logger.debug("Opened {}", partPath);
+        }
+
+        void write(String json) throws IOException {
+            byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+            out.write(bytes);
+            out.write('\n');
+            bytesWritten += bytes.length + 1;
+            dirty = true;
+        }
+
+        void sync() throws IOException {
+            out.flush();
+            fileStream.getChannel().force(false);
+            dirty = false;
+        }
+
+        void complete() throws IOException {
+            out.finish();
+            out.flush();
+            fileStream.getChannel().force(false);
+            out.close();
+            Files.move(partPath, completePath, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Completed {} ({} bytes uncompressed)", completePath, bytesWritten);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package heliumevents;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import com.uber.h3core.H3Core;
+import com.uber.h3core.util.GeoCoord;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micronaut.context.annotation.Value;
+import jakarta.inject.Singleton;
+
+/**
+ * Decodes H3 location indexes to the lat/lon of the cell centre. The same neighbouring hotspots 
+ * turn up in receipt after receipt, so decoded cells are kept in a bounded LRU cache.
+ */
+@Singleton
+public class H3Locations {
+
+    private static final Logger logger = LoggerFactory.getLogger(H3Locations.class);
+
+    private static final double EARTH_RADIUS_KM = 6371.0088;
+
+    @Value("${micronaut.application.H3_CACHE_SIZE:10000}")
+    int cacheSize;
+
+    private H3Core h3;
+
+    Map<String, double[]> cache;
+
+    @PostConstruct
+    void setup() {
+        try {
+            h3 = H3Core.newInstance();
+        }
+        catch(IOException | UnsatisfiedLinkError e) {
+            logger.warn("Could not load the H3 library - witness locations will not be decoded", e);
+        }
+
+        cache = Collections.synchronizedMap(new LinkedHashMap<String, double[]>(cacheSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, double[]> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    /**
+     * @param h3Index H3 index as a hex string, as found in the 'location' fields of Helium transactions
+     * @return {lat, lon} of the centre of the cell, or null if it can't be decoded
+     */
+    public double[] decode(String h3Index) {
+        if(null == h3 || null == h3Index || h3Index.isEmpty()) return null;
+
+        double[] latLon = cache.get(h3Index);
+        if(null == latLon) {
+            try {
+                if( ! h3.h3IsValid(h3Index)) return null;
+            }
+            catch(IllegalArgumentException e) {
+                // not even hex
+                return null;
+            }
+            GeoCoord centre = h3.h3ToGeo(h3Index);
+            latLon = new double[] { centre.lat, centre.lng };
+            cache.put(h3Index, latLon);
+        }
+        return latLon;
+    }
+
+    /**
+     * Great circle distance between two points, using the haversine formula
+     * @return distance in km
+     */
+    public static double distanceKm(double[] from, double[] to) {
+        double dLat = Math.toRadians(to[0] - from[0]);
+        double dLon = Math.toRadians(to[1] - from[1]);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+            + Math.cos(Math.toRadians(from[0])) * Math.cos(Math.toRadians(to[0])) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.sqrt(a));
+    }
+}
@@ -6,11 +6,16 @@ import java.net.URI;
 import java.net.URL;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Scanner;
 
 import javax.annotation.PostConstruct;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
@@ -52,6 +57,8 @@ public class HeliumApi {
     private String HS_ACTIVITY_CURSOR;
     private String HS_ACTIVITY_DATA;
     private String HS_DETAILS;
+    private String ACCOUNT_HOTSPOTS;
+    private String ACCOUNT_HOTSPOTS_CURSOR;
 
     private static final DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss"); //2021-05-11T01:39:53Z
 
@@ -63,7 +70,7 @@ public class HeliumApi {
 
     private ClassPathResourceLoader loader = new ResourceResolver().getLoader(ClassPathResourceLoader.class).get();
 
-    private JsonObject hotspotDetails;
+    private Map<String, JsonObject> hotspotDetails = new HashMap<>();
 
 
 
@@ -91,6 +98,8 @@ public class HeliumApi {
         HS_ACTIVITY_CURSOR = HS_ACTIVITY_BASE + "?min_time=%s&max_time=%s";
         HS_ACTIVITY_DATA = HS_ACTIVITY_BASE + "?cursor=%s";
         HS_DETAILS = HS_BASE+"/v1/hotspots/%s";
+        ACCOUNT_HOTSPOTS = HS_BASE+"/v1/accounts/%s/hotspots";
+        ACCOUNT_HOTSPOTS_CURSOR = ACCOUNT_HOTSPOTS + "?cursor=%s";
 
     }
 
@@ -123,20 +132,60 @@ public class HeliumApi {
 
 
     public String getHotspotName(String hotspotAddress) throws HeliumApiException {
-        if(null == hotspotDetails) initHotspotDetails(hotspotAddress);
-        return hotspotDetails.get("data").getAsJsonObject().get("name").getAsString();
+        return getHotspotDetails(hotspotAddress).get("data").getAsJsonObject().get("name").getAsString();
     }
 
     public DateTime getHotspotBirithday(String hotspotAddress) throws HeliumApiException {
-        if(null == hotspotDetails) initHotspotDetails(hotspotAddress);
-        String timestamp = hotspotDetails.get("data").getAsJsonObject().get("timestamp_added").getAsString();
+        String timestamp = getHotspotDetails(hotspotAddress).get("data").getAsJsonObject().get("timestamp_added").getAsString();
         return DateTime.parse(timestamp); // "2021-09-20T11:22:46.000000Z"
     }
 
+    /**
+     * List all the hotspots owned by an account, following the cursor through every page. The listing 
+     * carries the same details as the hotspot endpoint, so they are cached here and the name and 
+     * birthday lookups for these hotspots don't need a call each.
+     * @param accountAddress the owner wallet
+     * @return the addresses of the account's hotspots
+     * @throws HeliumApiException
+     */
+    public List<String> getAccountHotspots(String accountAddress) throws HeliumApiException {
+        List<String> addresses = new ArrayList<>();
+        String url = String.format(ACCOUNT_HOTSPOTS, accountAddress);
+        while(null != url) {
+            JsonObject page = JsonParser.parseString(sendRequest(url)).getAsJsonObject();
+            if(page.has("error")) {
+                throw new HeliumApiException(page.get("error").getAsString());
+            }
+            if( ! page.has("data") || ! page.get("data").isJsonArray()) {
+                throw new HeliumApiException("No hotspot data for account "+accountAddress);
+            }
+
+            JsonArray hotspots = page.getAsJsonArray("data");
+            for(int i=0; i < hotspots.size(); i++) {
+                JsonObject hotspot = hotspots.get(i).getAsJsonObject();
+                String address = hotspot.get("address").getAsString();
+                JsonObject details = new JsonObject();
+                details.add("data", hotspot);
+                hotspotDetails.put(address, details);
+                addresses.add(address);
+            }
+
+            url = page.has("cursor") 
+                ? String.format(ACCOUNT_HOTSPOTS_CURSOR, accountAddress, page.get("cursor").getAsString()) 
+                : null;
+        }
+        return addresses;
+    }
+
+    private JsonObject getHotspotDetails(String hotspotAddress) throws HeliumApiException {
+        if( ! hotspotDetails.containsKey(hotspotAddress)) initHotspotDetails(hotspotAddress);
+        return hotspotDetails.get(hotspotAddress);
+    }
+
     private void initHotspotDetails(String hotspotAddress) throws HeliumApiException {
         String url = String.format(HS_DETAILS, hotspotAddress);
         String json = sendRequest(url);
-        hotspotDetails = JsonParser.parseString(json).getAsJsonObject();
+        hotspotDetails.put(hotspotAddress, JsonParser.parseString(json).getAsJsonObject());
     }
 
     /**
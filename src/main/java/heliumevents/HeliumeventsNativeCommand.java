@@ -29,5 +29,9 @@ public class HeliumeventsNativeCommand implements Runnable {
             System.out.println("Could not work with ES");
             e.printStackTrace();
         }
+        catch (SinkException e) {
+            System.out.println("Could not store transactions");
+            e.printStackTrace();
+        }
     }
 }
@@ -0,0 +1,246 @@
+package heliumevents;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.google.gson.JsonObject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micronaut.context.annotation.Value;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+/**
+ * Shares hotspots out between trawler instances using lease docs in the metadata index. Leases are
+ * claimed, renewed and released with optimistic concurrency (if_seq_no/if_primary_term), so only one 
+ * instance can own a hotspot at a time.
+ * 
+ * Each instance holds one lease at a time and goes back for another once it is done, so a new instance 
+ * starts taking unclaimed hotspots straight away and the leases of an instance that dies are taken over
+ * once they expire. When leasing is disabled every hotspot is simply handed out in turn.
+ */
+@Singleton
+public class LeaseManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeaseManager.class);
+
+    private static final String INDEX = "metadataindex";
+
+    @Inject
+    ElasticSearchApi esApi;
+
+    @Value("${micronaut.application.LEASES:false}")
+    boolean enabled;
+
+    @Value("${micronaut.application.LEASE_TTL_SECONDS:600}")
+    long ttlSeconds;
+
+    @Value("${HOSTNAME:trawler}")
+    String hostname;
+
+    private String owner;
+
+    private final long runStart = System.currentTimeMillis();
+
+    private final Map<String, Lease> held = new HashMap<>();
+
+    @PostConstruct
+    void setup() {
+        owner = hostname + "-" + UUID.randomUUID().toString().substring(0, 8);
+        if(enabled) logger.info("Sharing hotspots with other instances as {}", owner);
+    }
+
+    /**
+     * Claim the next hotspot for one of the trawl lanes. The leases of all the outstanding hotspots are 
+     * fetched together in a single request for each pass over them.
+     * 
+     * For the live lane, any hotspot that is not currently leased can be claimed, as its live head needs 
+     * keeping current even once it has been synched. Hotspots leased by other instances are being kept 
+     * current by them, so they are added to done and not looked at again.
+     * 
+     * For the backfill lane, only hotspots that have not been synched since this run started are claimed. 
+     * While the only hotspots left are leased by other instances this waits, so that their leases can be 
+     * taken over if they expire.
+     * @param hotspots all the hotspots to be trawled
+     * @param done hotspots this instance has already dealt with
+     * @param live whether the claim is for the live lane rather than the backfill lane
+     * @return the claimed hotspot, or null when there is nothing left to do
+     */
+    public String claimNext(List<String> hotspots, Set<String> done, boolean live) throws ElasticSearchApiException {
+        while(true) {
+            List<String> outstanding = new ArrayList<>();
+            for(String hotspot : hotspots) {
+                if(done.contains(hotspot)) continue;
+                if( ! enabled) return hotspot;
+                outstanding.add(hotspot);
+            }
+            if(outstanding.isEmpty()) return null;
+
+            List<String> leaseIds = new ArrayList<>();
+            for(String hotspot : outstanding) leaseIds.add(leaseId(hotspot));
+            Map<String, JsonObject> leases = esApi.getVersionedDocs(INDEX, leaseIds);
+
+            long earliestExpiry = Long.MAX_VALUE;
+            for(String hotspot : outstanding) {
+                JsonObject versioned = leases.get(leaseId(hotspot));
+                Long seqNo = null;
+                Long primaryTerm = null;
+                long syncedAt = 0;
+                if(null != versioned) {
+                    JsonObject lease = versioned.getAsJsonObject("_source");
+                    syncedAt = lease.get("syncedAt").getAsLong();
+                    if( ! live && syncedAt >= runStart) {
+                        done.add(hotspot);
+                        continue;
+                    }
+                    long expires = lease.get("expires").getAsLong();
+                    if(expires > System.currentTimeMillis()) {
+                        if(live) done.add(hotspot);
+                        earliestExpiry = Math.min(earliestExpiry, expires);
+                        continue;
+                    }
+                    if( ! lease.get("owner").getAsString().isEmpty()) {
+                        logger.info("Taking over expired lease on {} from {}", hotspot, lease.get("owner").getAsString());
+                    }
+                    seqNo = versioned.get("_seq_no").getAsLong();
+                    primaryTerm = versioned.get("_primary_term").getAsLong();
+                }
+
+                if(write(hotspot, new Lease(seqNo, primaryTerm, 0, syncedAt), owner, expiry(), syncedAt)) {
+                    if(live) {
+                        logger.debug("Claimed lease on {} for its live head", hotspot);
+                    }
+                    else {
+                        logger.info("Claimed lease on {}", hotspot);
+                    }
+                    return hotspot;
+                }
+                // another instance has just claimed it, so it is theirs until the lease expires
+                logger.debug("Lost the race for {}", hotspot);
+                if(live) done.add(hotspot);
+                earliestExpiry = Math.min(earliestExpiry, expiry());
+            }
+
+            if(live || earliestExpiry == Long.MAX_VALUE) return null;
+
+            long wait = Math.min(earliestExpiry - System.currentTimeMillis(), ttlSeconds * 1000 / 3);
+            logger.info("Remaining hotspots are leased by other instances - checking again in {}s", wait / 1000);
+            try {
+                Thread.sleep(Math.max(wait, 1000));
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Extend the lease on a hotspot. Cheap to call often - the lease is only written once a third of 
+     * its time to live has passed.
+     * @return false if the lease has been lost to another instance and the hotspot should be abandoned
+     */
+    public boolean renew(String hotspot) throws ElasticSearchApiException {
+        if( ! enabled) return true;
+
+        Lease lease = held.get(hotspot);
+        if(null == lease) return false;
+        if(System.currentTimeMillis() - lease.renewedAt < ttlSeconds * 1000 / 3) return true;
+
+        if( ! write(hotspot, lease, owner, expiry(), lease.syncedAt)) {
+            logger.warn("Lease on {} was taken by another instance", hotspot);
+            held.remove(hotspot);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Give up the lease on a hotspot
+     * @param synched whether the hotspot was brought up to date, in which case no other instance will backfill it this run
+     */
+    public void release(String hotspot, boolean synched) throws ElasticSearchApiException {
+        if( ! enabled) return;
+
+        Lease lease = held.get(hotspot);
+        if(null == lease) return;
+        boolean released = write(hotspot, lease, "", 0, synched ? System.currentTimeMillis() : lease.syncedAt);
+        held.remove(hotspot);
+        if( ! released) {
+            logger.warn("Lease on {} was taken by another instance before it could be released", hotspot);
+        }
+    }
+
+    /**
+     * @return true if another instance currently holds the lease on a hotspot
+     */
+    public boolean isLeasedElsewhere(String hotspot) throws ElasticSearchApiException {
+        if( ! enabled || held.containsKey(hotspot)) return false;
+
+        JsonObject versioned = esApi.getVersionedDoc(INDEX, leaseId(hotspot));
+        return null != versioned 
+            && versioned.getAsJsonObject("_source").get("expires").getAsLong() > System.currentTimeMillis();
+    }
+
+    @PreDestroy
+    void releaseAll() {
+        for(String hotspot : held.keySet().toArray(new String[0])) {
+            try {
+                release(hotspot, false);
+            }
+            catch(ElasticSearchApiException esex) {
+                logger.warn("Could not release lease on {} - it will expire in time", hotspot, esex);
+            }
+        }
+    }
+
+    private boolean write(String hotspot, Lease lease, String leaseOwner, long expires, long syncedAt) throws ElasticSearchApiException {
+        JsonObject doc = new JsonObject();
+        doc.addProperty("type", "lease");
+        doc.addProperty("hotspot", hotspot);
+        doc.addProperty("owner", leaseOwner);
+        doc.addProperty("expires", expires);
+        doc.addProperty("syncedAt", syncedAt);
+
+        JsonObject response = esApi.putDocConditionally(INDEX, leaseId(hotspot), doc.toString(), lease.seqNo, lease.primaryTerm);
+        if(null == response) return false;
+
+        held.put(hotspot, new Lease(
+            response.get("_seq_no").getAsLong(), 
+            response.get("_primary_term").getAsLong(), 
+            System.currentTimeMillis(),
+            syncedAt));
+        return true;
+    }
+
+    private long expiry() {
+        return System.currentTimeMillis() + ttlSeconds * 1000;
+    }
+
+    private static String leaseId(String hotspot) {
+        return "lease-" + hotspot;
+    }
+
+    private static class Lease {
+        private final Long seqNo;
+        private final Long primaryTerm;
+        private final long renewedAt;
+        private final long syncedAt;
+
+        Lease(Long seqNo, Long primaryTerm, long renewedAt, long syncedAt) {
+            this.seqNo = seqNo;
+            this.primaryTerm = primaryTerm;
+            this.renewedAt = renewedAt;
+            this.syncedAt = syncedAt;
+        }
+    }
+}
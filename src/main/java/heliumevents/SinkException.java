@@ -0,0 +1,18 @@
+package heliumevents;
+
+public class SinkException extends Exception {
+
+    public SinkException(String message) {
+        super(message);
+    }
+
+    public SinkException(Throwable cause) {
+        super(cause);
+    }
+
+    public SinkException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    
+}
@@ -21,5 +21,10 @@ public class Stats {
     public void incrementDuplicateDocs() {
         duplicateDocs++;
     }
+
+    public void add(Stats other) {
+        newDocs += other.newDocs;
+        duplicateDocs += other.duplicateDocs;
+    }
     
 }
@@ -0,0 +1,40 @@
+package heliumevents;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Destination for patched transactions. Every enabled sink receives every transaction, so
+ * several sinks can run side by side off the same trawl.
+ * 
+ * Sinks are free to buffer writes. Nothing counts as stored until {@link #flush()} returns,
+ * and the trawler only moves its checkpoint on once all sinks have flushed.
+ */
+public interface TransactionSink {
+
+    /**
+     * @return a short name to identify the sink in the logs
+     */
+    String getName();
+
+    /**
+     * Queue a transaction for storage. The doc is shared with the other sinks and must not be modified.
+     * @param indexName the index (hotspot name) the transaction belongs to
+     * @param identifier the transaction hash
+     * @param doc the patched transaction
+     * @throws SinkException
+     */
+    void write(String indexName, String identifier, JsonObject doc) throws SinkException;
+
+    /**
+     * Store everything written since the last flush, blocking until the sink has acknowledged it.
+     * @return counts of the transactions acknowledged by this flush
+     * @throws SinkException if any of the writes could not be stored
+     */
+    Stats flush() throws SinkException;
+
+    /**
+     * Drop everything written since the last flush, when a day's trawl is abandoned part way through. 
+     * Sinks hold writes until they are flushed, so none of the abandoned day reaches the sink.
+     */
+    void discard();
+}
@@ -1,6 +1,12 @@
 package heliumevents;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.PostConstruct;
 
@@ -31,10 +37,41 @@ public class Trawler {
     @Inject
     private ElasticSearchApi esApi;
 
-    @Value("${HOTSPOT}")
+    @Inject
+    private List<TransactionSink> sinks;
+
+    @Inject
+    private LeaseManager leaseManager;
+
+    @Inject
+    private BackfillSettings backfillSettings;
+
+    @Inject
+    private H3Locations h3Locations;
+
+    /** One or more hotspot addresses, comma separated */
+    @Value("${HOTSPOT:}")
     String hotspot;
 
-    private String hotspotName;
+    /** Owner wallet whose hotspots are all trawled, as well as any listed in HOTSPOT */
+    @Value("${ACCOUNT:}")
+    String account;
+
+    private final List<String> hotspots = new ArrayList<>();
+
+    /** hotspot address to name, for the hotspots set up in ES this run */
+    private final Map<String, String> preparedHotspots = new HashMap<>();
+
+    /** hotspots whose live head has been trawled this run */
+    private final Set<String> liveHeads = new HashSet<>();
+
+    /** Number of days, counting today, that make up the live head */
+    @Value("${micronaut.application.LIVE_WINDOW_DAYS:2}")
+    int liveWindowDays;
+
+    /** How often a backfill stops to bring the live head up to date again */
+    @Value("${micronaut.application.LIVE_REFRESH_SECONDS:300}")
+    long liveRefreshSeconds;
 
     private long startTime = System.currentTimeMillis();
 
@@ -50,16 +87,37 @@ public class Trawler {
                 .toFormatter();
 
     @PostConstruct
-    void prep() throws ElasticSearchApiException {
+    void prep() {
         
-        try {
-            hotspotName = heliumApi.getHotspotName(hotspot);
-        } 
-        catch (HeliumApiException hex) {
-            logger.error("Could not resolve hotspot name", hex);
-            handleError(hex);
-            return;
+        if(sinks.isEmpty()) throw new IllegalStateException("No sinks enabled - enable at least one of ES_SINK and FILE_SINK");
+        for(TransactionSink sink : sinks) logger.info("Writing to {} sink", sink.getName());
+
+        if(hotspot.isBlank() && account.isBlank()) throw new IllegalStateException("Set HOTSPOT and/or ACCOUNT");
+        if(liveWindowDays < 1) throw new IllegalStateException("LIVE_WINDOW_DAYS must be at least 1");
+        for(String address : hotspot.split(",")) {
+            if( ! address.isBlank()) hotspots.add(address.trim());
+        }
+    }
+
+    /**
+     * Add the hotspots currently owned by the account, so new ones are picked up on every run
+     */
+    private void discoverAccountHotspots() throws HeliumApiException {
+        if(account.isBlank()) return;
+
+        List<String> owned = heliumApi.getAccountHotspots(account);
+        logger.info("Account {} owns {} hotspot(s)", account, owned.size());
+        for(String address : owned) {
+            if( ! hotspots.contains(address)) hotspots.add(address);
         }
+    }
+
+    private String prepHotspot(String hotspot) throws HeliumApiException, ElasticSearchApiException {
+        
+        // the live lane comes back to each hotspot every few minutes, so only set it up once a run
+        if(preparedHotspots.containsKey(hotspot)) return preparedHotspots.get(hotspot);
+
+        String hotspotName = heliumApi.getHotspotName(hotspot);
         
         // check that the metadata index exists
         try {
@@ -73,18 +131,42 @@ public class Trawler {
         // create mapping for timestamp in documents
         try {
             esApi.getRaw("/"+hotspotName+"/_mapping");
+            updateMappings(hotspotName);
         }
         catch(ElasticSearchApiException esex) {
-            createMapptings();
+            createMapptings(hotspotName);
         }
+        preparedHotspots.put(hotspot, hotspotName);
+        return hotspotName;
     }
 
-    private void createMapptings() throws ElasticSearchApiException {
+    private void createMapptings(String hotspotName) throws ElasticSearchApiException {
         JsonObject payload = new JsonObject();
         JsonObject mappings = new JsonObject();
         payload.add("mappings", mappings);
+        mappings.add("properties", mappingProperties());
+
+        logger.info("Setting up mappings for time (date field), path.challengee_location and path.witnesses.location_geo (geo_point)");
+        String json = new Gson().toJson(payload);
+        esApi.putDocRaw("/" + hotspotName, json);
+    }
+
+    /**
+     * Add any fields introduced since the index was created. Fields that are already mapped are left alone.
+     */
+    private void updateMappings(String hotspotName) {
+        JsonObject payload = new JsonObject();
+        payload.add("properties", mappingProperties());
+        try {
+            esApi.putDocRaw("/" + hotspotName + "/_mapping", new Gson().toJson(payload));
+        }
+        catch(ElasticSearchApiException esex) {
+            logger.warn("Could not update mappings for {} - new fields may have been mapped dynamically already", hotspotName, esex);
+        }
+    }
+
+    private JsonObject mappingProperties() {
         JsonObject properties = new JsonObject();
-        mappings.add("properties", properties);
 
         JsonObject timeMapping = new JsonObject();
         timeMapping.addProperty("type", "date");
@@ -94,56 +176,265 @@ public class Trawler {
         challengeeLocationMapping.addProperty("type", "geo_point");
         properties.add("path.challengee_location", challengeeLocationMapping);
 
-        logger.info("Setting up mappings for time (date field) and path.challengee_location (geo_point)");
-        String json = new Gson().toJson(payload);
-        esApi.putDocRaw("/" + hotspotName, json);
+        JsonObject witnessLocationMapping = new JsonObject();
+        witnessLocationMapping.addProperty("type", "geo_point");
+        properties.add("path.witnesses.location_geo", witnessLocationMapping);
+
+        JsonObject witnessDistanceMapping = new JsonObject();
+        witnessDistanceMapping.addProperty("type", "float");
+        properties.add("path.witnesses.distance_km", witnessDistanceMapping);
+
+        return properties;
     }
 
 
-    public void trawl() throws ElasticSearchApiException {
+    public void trawl() throws ElasticSearchApiException, SinkException {
         try {
-            DateTime hsBday = heliumApi.getHotspotBirithday(hotspot);
-            DateTime latestTrawlCompleteDay = getLatestSuccessfulTrawlCompleteDay(hotspotName);
-            if(null == latestTrawlCompleteDay) latestTrawlCompleteDay = hsBday;
-            
-            logger.info("Synching from {} for hotspot {}, born on {}", latestTrawlCompleteDay.toString("dd-MMM-yyyy"), hotspotName, hsBday.toString("dd-MMM-yyyy' 'hh:mm"));
-
-            DateTime dateCursor = latestTrawlCompleteDay.withTime(0, 0, 0, 0);
-            
-            while(dateCursor.isBefore(new DateTime())) {
-                logger.debug("Fetching events for {}", dateCursor.toString("dd-MMM-yyyy"));
-                Stats stats = new Stats();
-                int transactionCount = 0;
-                JsonObject response = heliumApi.fetchHotspotActivityForDate(hotspot, dateCursor);
-                if(response.has("data")) {
-                    transactionCount += processData(response.getAsJsonArray("data"), stats);
-                }
+            discoverAccountHotspots();
+        }
+        catch(HeliumApiException hex) {
+            handleError(hex);
+            return;
+        }
+        logger.info("Trawling {} hotspot(s)", hotspots.size());
 
-                while(response.has("cursor")) {
-                    response = heliumApi.fetchTransactions(
-                        hotspot, 
-                        response.get("cursor").getAsString(),
-                        hotspotName);
-                    transactionCount += processData((JsonArray) response.get("data"), stats);
-                }
-                
-                logger.info("{} processed, fetched {} transactions: {} new, {} already known", 
-                    dateCursor.toString("dd-MMM-yyyy"), 
-                    transactionCount,
-                    stats.getNewDocs(),
-                    stats.getDuplicateDocs());
+        // put back the settings of interrupted backfills this run won't resume
+        backfillSettings.sweep(hotspots);
+
+        // live lane first, so every hotspot is current before any time is spent on history
+        trawlLiveHeads(null);
+
+        // then the backfill lane, which gets whatever time is left between live head refreshes
+        Set<String> done = new HashSet<>();
+        String hotspot;
+        while(null != (hotspot = leaseManager.claimNext(hotspots, done, false))) {
+            boolean synched = false;
+            try {
+                synched = trawl(hotspot);
+            }
+            catch(HeliumApiException hex) {
+                handleError(hex);
+            }
+            finally {
+                done.add(hotspot);
+                leaseManager.release(hotspot, synched);
+            }
+        }
+
+        Duration duration = new Duration(System.currentTimeMillis()-startTime);
+        String formatted = formatter.print(duration.toPeriod()); 
+        logger.info("Synch complete. Total time: {}", formatted);
+    }
+
+    /**
+     * Run the live lane over every hotspot this instance can claim. Hotspots leased elsewhere are skipped - 
+     * whoever holds them is keeping their live head fresh - and so are hotspots whose live head has been 
+     * refreshed recently, by this instance or another one. The live checkpoints are read up front so that 
+     * current hotspots are skipped without claiming their leases, and read again once a lease is claimed 
+     * in case another instance refreshed the hotspot in the meantime.
+     * @param held the hotspot being backfilled, if any. Its lease is kept renewed while the others are trawled
+     * @return false if the lease on the held hotspot was lost along the way
+     */
+    private boolean trawlLiveHeads(String held) throws ElasticSearchApiException, SinkException {
+        Set<String> visited = new HashSet<>();
+        if(null != held) visited.add(held);
+        skipCurrentLiveHeads(visited);
+        String hotspot;
+        while(null != (hotspot = leaseManager.claimNext(hotspots, visited, true))) {
+            try {
+                String hotspotName = prepHotspot(hotspot);
+                if( ! isLiveHeadCurrent(hotspotName)) trawlLiveHead(hotspot, hotspotName);
+                liveHeads.add(hotspot);
+            }
+            catch(HeliumApiException hex) {
+                handleError(hex);
+            }
+            finally {
+                visited.add(hotspot);
+                leaseManager.release(hotspot, false);
+            }
+            if(null != held && ! leaseManager.renew(held)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Add the hotspots whose live head is current to the visited set, reading all their live checkpoints 
+     * in one request
+     */
+    private void skipCurrentLiveHeads(Set<String> visited) throws ElasticSearchApiException {
+        Map<String, String> byCheckpointId = new HashMap<>();
+        for(String hotspot : hotspots) {
+            if(visited.contains(hotspot)) continue;
+            try {
+                byCheckpointId.put(liveCheckpointId(heliumApi.getHotspotName(hotspot)), hotspot);
+            }
+            catch(HeliumApiException hex) {
+                // left for the live lane to claim, which reports the error
+            }
+        }
+
+        Map<String, JsonObject> checkpoints = esApi.getVersionedDocs("metadataindex", byCheckpointId.keySet());
+        for(Map.Entry<String, JsonObject> checkpoint : checkpoints.entrySet()) {
+            if(isLiveHeadCurrent(toLiveCheckpoint(checkpoint.getValue().getAsJsonObject("_source")))) {
+                visited.add(byCheckpointId.get(checkpoint.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Bring a single hotspot up to date, closing the gap between the backfill checkpoint and the start 
+     * of the live head
+     * @return true if the hotspot was synched up to now, false if its lease was lost along the way
+     */
+    private boolean trawl(String hotspot) throws HeliumApiException, ElasticSearchApiException, SinkException {
+        String hotspotName = prepHotspot(hotspot);
+        boolean caughtUp = false;
+        boolean leaseLost = false;
+        try {
+            caughtUp = backfill(hotspot, hotspotName);
+            leaseLost = ! caughtUp;
+            return caughtUp;
+        }
+        finally {
+            if(leaseLost) {
+                backfillSettings.abandon(hotspotName);
+            }
+            else {
+                backfillSettings.end(hotspotName, caughtUp);
+            }
+        }
+    }
+
+    private boolean backfill(String hotspot, String hotspotName) throws HeliumApiException, ElasticSearchApiException, SinkException {
+        DateTime hsBday = heliumApi.getHotspotBirithday(hotspot);
+        DateTime latestTrawlCompleteDay = getLatestSuccessfulTrawlCompleteDay(hotspotName);
+        boolean firstBackfill = null == latestTrawlCompleteDay;
+        if(firstBackfill) latestTrawlCompleteDay = hsBday;
+        DateTime dateCursor = latestTrawlCompleteDay.withTime(0, 0, 0, 0);
+        
+        // the live lane has usually just done this hotspot
+        if( ! liveHeads.contains(hotspot) || ! isLiveHeadCurrent(hotspotName)) {
+            if( ! trawlLiveHead(hotspot, hotspotName)) return false;
+        }
+        long liveRefreshedAt = System.currentTimeMillis();
+        DateTime liveFrom = getLiveCheckpoint(hotspotName)[0];
+
+        backfillSettings.begin(hotspot, hotspotName, firstBackfill && dateCursor.isBefore(liveFrom));
+        if(dateCursor.isBefore(liveFrom)) {
+            logger.info("Backfilling from {} to {} for hotspot {}, born on {}", dateCursor.toString("dd-MMM-yyyy"), liveFrom.toString("dd-MMM-yyyy"), hotspotName, hsBday.toString("dd-MMM-yyyy' 'hh:mm"));
+        }
+
+        while(dateCursor.isBefore(liveFrom)) {
+            if( ! synchDay(hotspot, hotspotName, dateCursor)) return false;
+            storeMetadata(hotspotName, dateCursor);
+            dateCursor = dateCursor.plusDays(1);
+
+            if(System.currentTimeMillis() - liveRefreshedAt >= liveRefreshSeconds * 1000) {
+                if( ! trawlLiveHead(hotspot, hotspotName)) return false;
+                if( ! trawlLiveHeads(hotspot)) return false;
+                liveRefreshedAt = System.currentTimeMillis();
+                // the live head can restart further on, which widens the gap
+                liveFrom = getLiveCheckpoint(hotspotName)[0];
+            }
+        }
+
+        // gap closed - the lanes have met, so move the backfill checkpoint up to the live head
+        storeMetadata(hotspotName, getLiveCheckpoint(hotspotName)[1]);
+        return true;
+    }
+
+    /**
+     * Trawl the last few days (the live head) up to now. The live lane has its own checkpoint, which 
+     * also records the day it started from so that the backfill lane knows where the gap ends. If the 
+     * live head has fallen out of the window since the last run, it restarts at the start of the window 
+     * and the skipped days become part of the gap.
+     * @return false if the lease on the hotspot was lost along the way
+     */
+    private boolean trawlLiveHead(String hotspot, String hotspotName) throws HeliumApiException, ElasticSearchApiException, SinkException {
+        DateTime windowStart = liveWindowStart(new DateTime(), liveWindowDays);
+        DateTime backfilled = getLatestSuccessfulTrawlCompleteDay(hotspotName);
+        DateTime[] checkpoint = getLiveCheckpoint(hotspotName);
+
+        DateTime liveFrom;
+        DateTime dateCursor;
+        if(isInLiveWindow(checkpoint, windowStart)) {
+            liveFrom = checkpoint[0];
+            dateCursor = checkpoint[1];
+        }
+        else {
+            if(haveLanesMet(checkpoint, backfilled)) {
+                // the lanes had already met, so everything up to the old live head is in
+                storeMetadata(hotspotName, checkpoint[1]);
+                backfilled = checkpoint[1];
+            }
+            liveFrom = liveRestartDay(windowStart, heliumApi.getHotspotBirithday(hotspot), backfilled);
+            dateCursor = liveFrom;
+            logger.info("Starting live head for hotspot {} from {}", hotspotName, liveFrom.toString("dd-MMM-yyyy"));
+        }
 
-                storeMetadata(hotspotName, dateCursor);
-                dateCursor = dateCursor.plusDays(1);
+        while(dateCursor.isBefore(new DateTime())) {
+            if( ! synchDay(hotspot, hotspotName, dateCursor)) return false;
+            storeLiveCheckpoint(hotspotName, liveFrom, dateCursor, new DateTime());
+            dateCursor = dateCursor.plusDays(1);
+        }
+
+        // the index may have refresh disabled for a backfill, so make the live head searchable now
+        esApi.postRaw("/" + hotspotName + "/_refresh");
+        return true;
+    }
+
+    /**
+     * Fetch a day's activity and pass it to the sinks
+     * @return true once every sink has acknowledged the day, false if the lease on the hotspot was lost
+     */
+    private boolean synchDay(String hotspot, String hotspotName, DateTime dateCursor) throws HeliumApiException, ElasticSearchApiException, SinkException {
+        logger.debug("Fetching events for {}", dateCursor.toString("dd-MMM-yyyy"));
+        int transactionCount = 0;
+        try {
+            JsonObject response = heliumApi.fetchHotspotActivityForDate(hotspot, dateCursor);
+            if(response.has("data")) {
+                transactionCount += processData(hotspotName, response.getAsJsonArray("data"));
             }
 
-            Duration duration = new Duration(System.currentTimeMillis()-startTime);
-            String formatted = formatter.print(duration.toPeriod()); 
-            logger.info("Synch complete. Total time: {}", formatted);
+            while(response.has("cursor")) {
+                if( ! leaseManager.renew(hotspot)) {
+                    discardSinks();
+                    return false;
+                }
+                response = heliumApi.fetchTransactions(
+                    hotspot, 
+                    response.get("cursor").getAsString(),
+                    hotspotName);
+                transactionCount += processData(hotspotName, (JsonArray) response.get("data"));
+            }
         }
         catch(HeliumApiException hex) {
-            handleError(hex);
+            discardSinks();
+            throw hex;
+        }
+
+        // don't hand the day over if the hotspot now belongs to another instance
+        if( ! leaseManager.renew(hotspot)) {
+            discardSinks();
+            return false;
+        }
+        
+        // only checkpoint the day once every sink has acknowledged it
+        for(TransactionSink sink : sinks) {
+            Stats stats = sink.flush();
+            logger.info("{} processed, fetched {} transactions: {} new, {} already known ({})", 
+                dateCursor.toString("dd-MMM-yyyy"), 
+                transactionCount,
+                stats.getNewDocs(),
+                stats.getDuplicateDocs(),
+                sink.getName());
         }
+        return true;
+    }
+
+    private void discardSinks() {
+        for(TransactionSink sink : sinks) sink.discard();
     }
 
     private void handleError(HeliumApiException hex) {
@@ -155,20 +446,15 @@ public class Trawler {
         }
     }
 
-    private int processData(JsonArray transactions, Stats stats) throws ElasticSearchApiException {
+    private int processData(String hotspotName, JsonArray transactions) throws SinkException {
         for(int i=0; i < transactions.size(); i++) {
             JsonObject doc = transactions.get(i).getAsJsonObject();
             patch(doc);
 
             String identifier = doc.get("hash").getAsString();
-            if( ! esApi.exists(hotspotName, identifier)) {
-                String docStr = new Gson().toJson(doc);
-                logger.trace(docStr);
-                esApi.putDoc(hotspotName, identifier, docStr);
-                stats.incrementNewDocs();
-            }
-            else {
-                stats.incrementDuplicateDocs();
+            if(logger.isTraceEnabled()) logger.trace(new Gson().toJson(doc));
+            for(TransactionSink sink : sinks) {
+                sink.write(hotspotName, identifier, doc);
             }
         }
         return transactions.size();
@@ -189,6 +475,87 @@ public class Trawler {
         return new DateTime(metadata.get(LAST_RUN_DATE).getAsLong());
     }
 
+    private static final String LIVE_FROM_DATE = "liveFrom";
+    private static final String REFRESHED_AT = "refreshedAt";
+
+    private void storeLiveCheckpoint(String hotspotName, DateTime liveFrom, DateTime lastRunDate, DateTime refreshedAt) throws ElasticSearchApiException {
+        JsonObject metadata = new JsonObject();
+        metadata.add(LIVE_FROM_DATE, new JsonPrimitive(liveFrom.getMillis()));
+        metadata.add(LIVE_FROM_DATE+"HumanReadable", new JsonPrimitive(liveFrom.toString()));
+        metadata.add(LAST_RUN_DATE, new JsonPrimitive(lastRunDate.getMillis()));
+        metadata.add(LAST_RUN_DATE+"HumanReadable", new JsonPrimitive(lastRunDate.toString()));
+        metadata.add(REFRESHED_AT, new JsonPrimitive(refreshedAt.getMillis()));
+        esApi.putDoc("metadataindex", liveCheckpointId(hotspotName), metadata.toString());
+    }
+
+    private static String liveCheckpointId(String hotspotName) {
+        return "live-" + hotspotName;
+    }
+
+    /**
+     * @return {liveFrom, lastRun, refreshedAt} of the live lane, or null if it has never run
+     */
+    private DateTime[] getLiveCheckpoint(String hotspotName) throws ElasticSearchApiException {
+        return toLiveCheckpoint(esApi.getDoc("metadataindex", liveCheckpointId(hotspotName)));
+    }
+
+    private static DateTime[] toLiveCheckpoint(JsonObject metadata) {
+        if(null == metadata || ! metadata.has(LAST_RUN_DATE)) return null;
+        return new DateTime[] { 
+            new DateTime(metadata.get(LIVE_FROM_DATE).getAsLong()), 
+            new DateTime(metadata.get(LAST_RUN_DATE).getAsLong()),
+            new DateTime(metadata.has(REFRESHED_AT) ? metadata.get(REFRESHED_AT).getAsLong() : 0) };
+    }
+
+    /**
+     * @return true if the live head has reached today and was refreshed less than LIVE_REFRESH_SECONDS ago
+     */
+    private boolean isLiveHeadCurrent(String hotspotName) throws ElasticSearchApiException {
+        return isLiveHeadCurrent(getLiveCheckpoint(hotspotName));
+    }
+
+    private boolean isLiveHeadCurrent(DateTime[] checkpoint) {
+        return isLiveHeadCurrent(checkpoint, new DateTime(), liveRefreshSeconds);
+    }
+
+    static boolean isLiveHeadCurrent(DateTime[] checkpoint, DateTime now, long liveRefreshSeconds) {
+        return null != checkpoint
+            && ! checkpoint[1].isBefore(now.withTimeAtStartOfDay())
+            && now.getMillis() - checkpoint[2].getMillis() < liveRefreshSeconds * 1000;
+    }
+
+    /**
+     * @return the first day of the live window, which ends today
+     */
+    static DateTime liveWindowStart(DateTime now, int liveWindowDays) {
+        return now.withTimeAtStartOfDay().minusDays(liveWindowDays - 1);
+    }
+
+    /**
+     * @return true if the live head can carry on from its checkpoint, false if it has fallen out of the window (or never ran)
+     */
+    static boolean isInLiveWindow(DateTime[] checkpoint, DateTime windowStart) {
+        return null != checkpoint && ! checkpoint[1].isBefore(windowStart);
+    }
+
+    /**
+     * @return true if the backfill checkpoint has reached the day the live head started from, so there is no gap between them
+     */
+    static boolean haveLanesMet(DateTime[] checkpoint, DateTime backfilled) {
+        return null != checkpoint && null != backfilled && ! backfilled.isBefore(checkpoint[0]);
+    }
+
+    /**
+     * @return the day a restarted live head starts from - the start of the window, unless the hotspot is younger 
+     * or has already been backfilled beyond it
+     */
+    static DateTime liveRestartDay(DateTime windowStart, DateTime hsBday, DateTime backfilled) {
+        DateTime liveFrom = windowStart;
+        if(hsBday.withTimeAtStartOfDay().isAfter(liveFrom)) liveFrom = hsBday.withTimeAtStartOfDay();
+        if(null != backfilled && backfilled.isAfter(liveFrom)) liveFrom = backfilled.withTimeAtStartOfDay();
+        return liveFrom;
+    }
+
     private void patch(JsonObject heliumDoc) {
         // add zeros to the time to make it epoc millis instead of seconds
         long timeSeconds = heliumDoc.get("time").getAsLong();
@@ -196,7 +563,7 @@ public class Trawler {
         String esFormatTimestamp = epoch.toString("YYYY-MM-dd'T'HH:mm:ssZ");
         heliumDoc.add("time", new JsonPrimitive(esFormatTimestamp));
 
-        if(heliumDoc.get("type").getAsString().equals("poc_receipts_v1")) patchChallengeeLocation(heliumDoc);
+        if(heliumDoc.get("type").getAsString().equals("poc_receipts_v1")) patchLocations(heliumDoc);
         if(heliumDoc.get("type").getAsString().equals("rewards_v2")) patchHNT(heliumDoc);
     }
 
@@ -210,17 +577,52 @@ public class Trawler {
         heliumDoc.addProperty("totalHnt", new BigDecimal(totalBones).divide(new BigDecimal(100000000)));
     }
 
-    private void patchChallengeeLocation(JsonObject heliumDoc) {
-        JsonObject path = heliumDoc.get("path").getAsJsonArray().get(0).getAsJsonObject();
-        float lon = -1; 
-        float lat = -1;
-        if(path.has("challengee_lon")) {
-            lon = path.get("challengee_lon").getAsFloat();
+    private void patchLocations(JsonObject heliumDoc) {
+        JsonArray path = heliumDoc.get("path").getAsJsonArray();
+        for(int i=0; i < path.size(); i++) {
+            JsonObject element = path.get(i).getAsJsonObject();
+            double[] challengee = patchChallengeeLocation(element);
+
+            if( ! element.has("witnesses")) continue;
+            JsonArray witnesses = element.get("witnesses").getAsJsonArray();
+            for(int j=0; j < witnesses.size(); j++) {
+                JsonObject witness = witnesses.get(j).getAsJsonObject();
+                double[] location = hasValue(witness, "location")
+                    ? h3Locations.decode(witness.get("location").getAsString())
+                    : null;
+                if(null == location) continue;
+
+                witness.addProperty("location_geo", location[0]+","+location[1]);
+                if(null != challengee) witness.addProperty("distance_km", H3Locations.distanceKm(challengee, location));
+            }
         }
-        if(path.has("challengee_lat")) {
-            lat = path.get("challengee_lat").getAsFloat();
+    }
+
+    /**
+     * Replace the challengee's H3 location with a geo_point, taken from its lat/lon if present or 
+     * decoded from the H3 index if not. The field is dropped if neither is available.
+     * @return {lat, lon} of the challengee, or null if unknown
+     */
+    private double[] patchChallengeeLocation(JsonObject path) {
+        double[] location = null;
+        if(hasValue(path, "challengee_lat") && hasValue(path, "challengee_lon")) {
+            location = new double[] { path.get("challengee_lat").getAsDouble(), path.get("challengee_lon").getAsDouble() };
         }
-        path.add("challengee_location", new JsonPrimitive(lat+","+lon));
+        else if(hasValue(path, "challengee_location")) {
+            location = h3Locations.decode(path.get("challengee_location").getAsString());
+        }
+
+        if(null == location) {
+            path.remove("challengee_location");
+        }
+        else {
+            path.add("challengee_location", new JsonPrimitive(location[0]+","+location[1]));
+        }
+        return location;
+    }
+
+    private static boolean hasValue(JsonObject obj, String name) {
+        return obj.has(name) && ! obj.get(name).isJsonNull();
     }
 
 }
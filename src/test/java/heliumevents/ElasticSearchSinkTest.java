@@ -0,0 +1,118 @@
+package heliumevents;
+
+import com.google.gson.JsonObject;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ElasticSearchSinkTest {
+
+    private FakeElasticSearchApi esApi;
+
+    private ElasticSearchSink sink;
+
+    @BeforeEach
+    public void setup() {
+        esApi = new FakeElasticSearchApi();
+        sink = new ElasticSearchSink();
+        sink.esApi = esApi;
+        sink.bulkSize = 2;
+        sink.maxRetries = 2;
+        sink.initialBackoffMillis = 1;
+    }
+
+    @Test
+    public void holdsWritesUntilFlushThenSendsThemInBatches() throws Exception {
+        for(int i=0; i < 5; i++) sink.write("index", "hash" + i, doc(i));
+        assertTrue(esApi.bulkRequests.isEmpty());
+
+        Stats stats = sink.flush();
+
+        assertEquals(3, esApi.bulkRequests.size());
+        assertEquals(2, FakeElasticSearchApi.docsIn(esApi.bulkRequests.get(0)));
+        assertEquals(1, FakeElasticSearchApi.docsIn(esApi.bulkRequests.get(2)));
+        assertEquals(5, stats.getNewDocs());
+    }
+
+    @Test
+    public void countsConflictsAsDuplicates() throws Exception {
+        esApi.bulkStatuses.add(new int[] { 201, 409 });
+        sink.write("index", "hash0", doc(0));
+        sink.write("index", "hash1", doc(1));
+
+        Stats stats = sink.flush();
+
+        assertEquals(1, stats.getNewDocs());
+        assertEquals(1, stats.getDuplicateDocs());
+    }
+
+    @Test
+    public void retriesOnlyTheRejectedDocs() throws Exception {
+        esApi.bulkStatuses.add(new int[] { 201, 429 });
+        sink.write("index", "hash0", doc(0));
+        sink.write("index", "hash1", doc(1));
+
+        Stats stats = sink.flush();
+
+        assertEquals(2, esApi.bulkRequests.size());
+        assertEquals(1, FakeElasticSearchApi.docsIn(esApi.bulkRequests.get(1)));
+        assertTrue(esApi.bulkRequests.get(1).contains("hash1"));
+        assertEquals(2, stats.getNewDocs());
+    }
+
+    @Test
+    public void retriesTheWholeBatchWhenTheRequestFails() throws Exception {
+        esApi.bulkStatuses.add(FakeElasticSearchApi.FAIL);
+        sink.write("index", "hash0", doc(0));
+        sink.write("index", "hash1", doc(1));
+
+        Stats stats = sink.flush();
+
+        assertEquals(2, esApi.bulkRequests.size());
+        assertEquals(2, FakeElasticSearchApi.docsIn(esApi.bulkRequests.get(1)));
+        assertEquals(2, stats.getNewDocs());
+    }
+
+    @Test
+    public void givesUpOnceTheRetriesRunOut() throws Exception {
+        esApi.bulkStatuses.add(new int[] { 503 });
+        esApi.bulkStatuses.add(new int[] { 503 });
+        esApi.bulkStatuses.add(new int[] { 503 });
+        sink.write("index", "hash0", doc(0));
+
+        assertThrows(SinkException.class, () -> sink.flush());
+        assertEquals(3, esApi.bulkRequests.size());
+    }
+
+    @Test
+    public void failsStraightAwayOnAPermanentRejection() throws Exception {
+        esApi.bulkStatuses.add(new int[] { 201, 400 });
+        sink.write("index", "hash0", doc(0));
+        sink.write("index", "hash1", doc(1));
+
+        assertThrows(SinkException.class, () -> sink.flush());
+        assertEquals(1, esApi.bulkRequests.size());
+    }
+
+    @Test
+    public void discardDropsEverythingSinceTheLastFlush() throws Exception {
+        for(int i=0; i < 3; i++) sink.write("index", "hash" + i, doc(i));
+
+        sink.discard();
+        Stats stats = sink.flush();
+
+        assertTrue(esApi.bulkRequests.isEmpty());
+        assertEquals(0, stats.getNewDocs());
+    }
+
+    static JsonObject doc(int i) {
+        JsonObject doc = new JsonObject();
+        doc.addProperty("hash", "hash" + i);
+        doc.addProperty("height", 1000 + i);
+        return doc;
+    }
+}
@@ -0,0 +1,113 @@
+package heliumevents;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * In-memory stand-in for ElasticSearch
+ */
+class FakeElasticSearchApi extends ElasticSearchApi {
+
+    /** bodies of the bulk requests received */
+    final List<String> bulkRequests = new ArrayList<>();
+
+    /** answer to a bulk request that fails as a whole */
+    static final int[] FAIL = new int[0];
+
+    /** item statuses to answer each bulk request with - every item is created once these run out */
+    final Deque<int[]> bulkStatuses = new ArrayDeque<>();
+
+    @Override
+    public JsonObject bulk(String ndjson) throws ElasticSearchApiException {
+        bulkRequests.add(ndjson);
+        int[] statuses = bulkStatuses.isEmpty() ? created(docsIn(ndjson)) : bulkStatuses.poll();
+        if(FAIL == statuses) throw new ElasticSearchApiException("Service Unavailable:503");
+
+        JsonArray items = new JsonArray();
+        for(int i=0; i < statuses.length; i++) {
+            JsonObject result = new JsonObject();
+            result.addProperty("_id", "doc" + i);
+            result.addProperty("status", statuses[i]);
+            JsonObject item = new JsonObject();
+            item.add("create", result);
+            items.add(item);
+        }
+        JsonObject response = new JsonObject();
+        response.add("items", items);
+        return response;
+    }
+
+    /** docs by index and id, as full GET responses */
+    final Map<String, JsonObject> docs = new HashMap<>();
+
+    private long seqNo;
+
+    @Override
+    public JsonObject getDoc(String indexName, String docIdentifier) {
+        JsonObject versioned = getVersionedDoc(indexName, docIdentifier);
+        return null == versioned ? null : versioned.getAsJsonObject("_source");
+    }
+
+    @Override
+    public JsonObject getVersionedDoc(String indexName, String docIdentifier) {
+        JsonObject versioned = docs.get(indexName + "/" + docIdentifier);
+        return null == versioned ? null : versioned.deepCopy();
+    }
+
+    @Override
+    public Map<String, JsonObject> getVersionedDocs(String indexName, Collection<String> docIdentifiers) {
+        Map<String, JsonObject> found = new HashMap<>();
+        for(String docIdentifier : docIdentifiers) {
+            JsonObject versioned = getVersionedDoc(indexName, docIdentifier);
+            if(null != versioned) found.put(docIdentifier, versioned);
+        }
+        return found;
+    }
+
+    @Override
+    public void putDoc(String indexName, String docIdentifier, String docStr) {
+        store(indexName, docIdentifier, docStr);
+    }
+
+    @Override
+    public JsonObject putDocConditionally(String indexName, String docIdentifier, String docStr, Long seqNo, Long primaryTerm) {
+        JsonObject current = docs.get(indexName + "/" + docIdentifier);
+        if(null == seqNo ? null != current : null == current || current.get("_seq_no").getAsLong() != seqNo) return null;
+        return store(indexName, docIdentifier, docStr);
+    }
+
+    @Override
+    public void deleteDoc(String indexName, String docIdentifier) {
+        docs.remove(indexName + "/" + docIdentifier);
+    }
+
+    private JsonObject store(String indexName, String docIdentifier, String docStr) {
+        JsonObject versioned = new JsonObject();
+        versioned.addProperty("_id", docIdentifier);
+        versioned.addProperty("_seq_no", seqNo++);
+        versioned.addProperty("_primary_term", 1);
+        versioned.add("_source", JsonParser.parseString(docStr));
+        docs.put(indexName + "/" + docIdentifier, versioned);
+        return versioned.deepCopy();
+    }
+
+    private static int[] created(int docs) {
+        int[] statuses = new int[docs];
+        Arrays.fill(statuses, 201);
+        return statuses;
+    }
+
+    static int docsIn(String ndjson) {
+        return ndjson.split("\n").length / 2;
+    }
+}
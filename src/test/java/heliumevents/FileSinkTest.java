@@ -0,0 +1,186 @@
+package heliumevents;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.JsonObject;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FileSinkTest {
+
+    @TempDir
+    Path directory;
+
+    private FileSink newSink() throws IOException {
+        FileSink sink = new FileSink();
+        sink.directory = directory.toString();
+        sink.rollMegabytes = 1;
+        sink.bufferKilobytes = 64;
+        sink.dedupeSize = 100;
+        sink.maxOpenFiles = 16;
+        sink.setup();
+        return sink;
+    }
+
+    @Test
+    public void writesNothingUntilFlushed() throws Exception {
+        FileSink sink = newSink();
+        sink.write("index", "hash0", doc(0));
+
+        assertTrue(files(".part").isEmpty());
+        assertEquals(1, sink.flush().getNewDocs());
+        assertEquals(1, files(".part").size());
+    }
+
+    @Test
+    public void skipsTransactionsAlreadyWritten() throws Exception {
+        FileSink sink = newSink();
+        sink.write("index", "hash0", doc(0));
+        sink.write("index", "hash0", doc(0));
+        Stats first = sink.flush();
+        sink.write("index", "hash0", doc(0));
+        sink.write("index", "hash1", doc(1));
+        Stats second = sink.flush();
+        sink.close();
+
+        assertEquals(1, first.getNewDocs());
+        assertEquals(1, first.getDuplicateDocs());
+        assertEquals(1, second.getNewDocs());
+        assertEquals(1, second.getDuplicateDocs());
+        assertEquals(2, lines(files(".ndjson.gz")).size());
+    }
+
+    @Test
+    public void forgetsTheLeastRecentlySeenTransactions() throws Exception {
+        FileSink sink = newSink();
+        sink.dedupeSize = 2;
+        for(int i : new int[] { 0, 1, 0, 2, 0, 1 }) sink.write("index", "hash" + i, doc(i));
+        Stats stats = sink.flush();
+
+        // hash0 keeps being seen so it stays known, and hash1 is evicted by hash2
+        assertEquals(4, stats.getNewDocs());
+        assertEquals(2, stats.getDuplicateDocs());
+    }
+
+    @Test
+    public void discardDropsEverythingSinceTheLastFlush() throws Exception {
+        FileSink sink = newSink();
+        sink.write("index", "hash0", doc(0));
+        sink.flush();
+        sink.write("index", "hash1", doc(1));
+        sink.discard();
+        sink.flush();
+        sink.close();
+
+        List<String> lines = lines(files(".ndjson.gz"));
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).contains("hash0"));
+    }
+
+    @Test
+    public void rollsOverOnceAFileIsFull() throws Exception {
+        FileSink sink = newSink();
+        String padding = "x".repeat(100 * 1024);
+        for(int i=0; i < 12; i++) {
+            JsonObject doc = doc(i);
+            doc.addProperty("padding", padding);
+            sink.write("index", "hash" + i, doc);
+        }
+        sink.flush();
+
+        assertEquals(1, files(".ndjson.gz").size());
+        assertEquals(1, files(".part").size());
+        sink.close();
+        assertEquals(2, files(".ndjson.gz").size());
+        assertEquals(12, lines(files(".ndjson.gz")).size());
+    }
+
+    @Test
+    public void completesTheLeastRecentlyWrittenFileToStayUnderTheOpenFileLimit() throws Exception {
+        FileSink sink = newSink();
+        sink.maxOpenFiles = 2;
+        sink.write("index0", "hash0", doc(0));
+        sink.write("index1", "hash1", doc(1));
+        sink.write("index0", "hash2", doc(2));
+        sink.write("index2", "hash3", doc(3));
+        sink.flush();
+
+        List<Path> complete = files(".ndjson.gz");
+        assertEquals(1, complete.size());
+        assertTrue(complete.get(0).getFileName().toString().startsWith("index1-"));
+        assertEquals(2, files(".part").size());
+    }
+
+    @Test
+    public void completesPartFilesLeftByARunThatDied() throws Exception {
+        Path part = directory.resolve("index-20220101T000000-0.ndjson.gz.part");
+        try(OutputStream out = new GZIPOutputStream(Files.newOutputStream(part), true)) {
+            out.write("{\"hash\":\"hash0\"}\n{\"hash\":\"hash1\"}\n{\"hash\":\"ha".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            // snapshot it before the trailer is written, as if the process died part way through
+            Files.copy(part, directory.resolve("snapshot"));
+        }
+        Files.move(directory.resolve("snapshot"), part, StandardCopyOption.REPLACE_EXISTING);
+
+        newSink();
+
+        assertTrue(files(".part").isEmpty());
+        List<String> lines = lines(files(".ndjson.gz"));
+        assertEquals(2, lines.size());
+        assertEquals("{\"hash\":\"hash1\"}", lines.get(1));
+    }
+
+    @Test
+    public void removesEmptyPartFiles() throws Exception {
+        Files.createFile(directory.resolve("index-20220101T000000-0.ndjson.gz.part"));
+
+        newSink();
+
+        assertTrue(files(".part").isEmpty());
+        assertTrue(files(".ndjson.gz").isEmpty());
+    }
+
+    private List<Path> files(String suffix) throws IOException {
+        List<Path> found = new ArrayList<>();
+        try(DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+            for(Path path : paths) {
+                if(path.getFileName().toString().endsWith(suffix)) found.add(path);
+            }
+        }
+        return found;
+    }
+
+    private static List<String> lines(List<Path> files) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for(Path file : files) {
+            try(InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                in.transferTo(content);
+                for(String line : content.toString(StandardCharsets.UTF_8).split("\n")) {
+                    if( ! line.isEmpty()) lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static JsonObject doc(int i) {
+        return ElasticSearchSinkTest.doc(i);
+    }
+}
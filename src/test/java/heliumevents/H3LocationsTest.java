@@ -0,0 +1,60 @@
+package heliumevents;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class H3LocationsTest {
+
+    private H3Locations h3Locations;
+
+    @BeforeEach
+    public void setup() {
+        h3Locations = new H3Locations();
+        h3Locations.cacheSize = 2;
+        h3Locations.setup();
+    }
+
+    @Test
+    public void decodesTheCentreOfTheCell() {
+        double[] latLon = h3Locations.decode("8928308280fffff");
+
+        assertEquals(37.7753, latLon[0], 0.001);
+        assertEquals(-122.4183, latLon[1], 0.001);
+    }
+
+    @Test
+    public void cannotDecodeInvalidOrMissingIndexes() {
+        assertNull(h3Locations.decode("not-a-cell"));
+        assertNull(h3Locations.decode("ffffffffffffffff"));
+        assertNull(h3Locations.decode(""));
+        assertNull(h3Locations.decode(null));
+        assertTrue(h3Locations.cache.isEmpty());
+    }
+
+    @Test
+    public void keepsTheMostRecentlyUsedCells() {
+        double[] first = h3Locations.decode("8928308280fffff");
+        h3Locations.decode("8928308280bffff");
+        h3Locations.decode("8928308280fffff");
+        h3Locations.decode("89283082807ffff");
+
+        assertEquals(2, h3Locations.cache.size());
+        assertTrue(h3Locations.cache.containsKey("8928308280fffff"));
+        assertFalse(h3Locations.cache.containsKey("8928308280bffff"));
+        assertTrue(first == h3Locations.decode("8928308280fffff"));
+    }
+
+    @Test
+    public void measuresGreatCircleDistances() {
+        double[] london = { 51.5074, -0.1278 };
+        double[] paris = { 48.8566, 2.3522 };
+
+        assertEquals(343.56, H3Locations.distanceKm(london, paris), 0.01);
+        assertEquals(0, H3Locations.distanceKm(london, london), 0.0001);
+    }
+}
@@ -0,0 +1,122 @@
+package heliumevents;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LeaseManagerTest {
+
+    private static final List<String> HOTSPOTS = Arrays.asList("hotspot0", "hotspot1");
+
+    private FakeElasticSearchApi esApi;
+
+    @BeforeEach
+    public void setup() {
+        esApi = new FakeElasticSearchApi();
+    }
+
+    private LeaseManager newInstance(String hostname, long ttlSeconds) {
+        LeaseManager leaseManager = new LeaseManager();
+        leaseManager.esApi = esApi;
+        leaseManager.enabled = true;
+        leaseManager.ttlSeconds = ttlSeconds;
+        leaseManager.hostname = hostname;
+        leaseManager.setup();
+        return leaseManager;
+    }
+
+    @Test
+    public void handsOutEveryHotspotInTurnWhenDisabled() throws Exception {
+        LeaseManager leaseManager = newInstance("a", 600);
+        leaseManager.enabled = false;
+        Set<String> done = new HashSet<>();
+
+        assertEquals("hotspot0", leaseManager.claimNext(HOTSPOTS, done, false));
+        done.add("hotspot0");
+        assertEquals("hotspot1", leaseManager.claimNext(HOTSPOTS, done, false));
+        done.add("hotspot1");
+        assertNull(leaseManager.claimNext(HOTSPOTS, done, false));
+        assertTrue(esApi.docs.isEmpty());
+    }
+
+    @Test
+    public void onlyOneInstanceHoldsAHotspot() throws Exception {
+        LeaseManager a = newInstance("a", 600);
+        LeaseManager b = newInstance("b", 600);
+
+        assertEquals("hotspot0", a.claimNext(HOTSPOTS, new HashSet<>(), false));
+        assertEquals("hotspot1", b.claimNext(HOTSPOTS, new HashSet<>(), false));
+        assertTrue(b.isLeasedElsewhere("hotspot0"));
+        assertFalse(a.isLeasedElsewhere("hotspot0"));
+    }
+
+    @Test
+    public void liveLaneSkipsHotspotsLeasedElsewhereWithoutWaiting() throws Exception {
+        LeaseManager a = newInstance("a", 600);
+        LeaseManager b = newInstance("b", 600);
+        a.claimNext(HOTSPOTS, new HashSet<>(), false);
+        Set<String> visited = new HashSet<>();
+        visited.add("hotspot1");
+
+        assertNull(b.claimNext(HOTSPOTS, visited, true));
+        assertTrue(visited.contains("hotspot0"));
+    }
+
+    @Test
+    public void takesOverExpiredLeases() throws Exception {
+        LeaseManager a = newInstance("a", 0);
+        LeaseManager b = newInstance("b", 600);
+        a.claimNext(HOTSPOTS, new HashSet<>(), false);
+
+        assertEquals("hotspot0", b.claimNext(HOTSPOTS, new HashSet<>(), false));
+        assertFalse(a.renew("hotspot0"));
+        assertTrue(b.renew("hotspot0"));
+    }
+
+    @Test
+    public void backfillLaneWaitsForLeasesHeldElsewhereToExpire() throws Exception {
+        LeaseManager a = newInstance("a", 1);
+        LeaseManager b = newInstance("b", 600);
+        a.claimNext(HOTSPOTS, new HashSet<>(), false);
+        Set<String> done = new HashSet<>();
+        done.add("hotspot1");
+
+        assertEquals("hotspot0", b.claimNext(HOTSPOTS, done, false));
+    }
+
+    @Test
+    public void synchedHotspotsAreNotBackfilledAgainThisRun() throws Exception {
+        LeaseManager b = newInstance("b", 600);
+        LeaseManager a = newInstance("a", 600);
+        a.claimNext(HOTSPOTS, new HashSet<>(), false);
+        a.release("hotspot0", true);
+        Set<String> done = new HashSet<>();
+        done.add("hotspot1");
+
+        assertNull(b.claimNext(HOTSPOTS, done, false));
+        assertTrue(done.contains("hotspot0"));
+        // but its live head still needs keeping current
+        assertEquals("hotspot0", b.claimNext(HOTSPOTS, new HashSet<>(Arrays.asList("hotspot1")), true));
+    }
+
+    @Test
+    public void releasedHotspotsThatWereNotSynchedCanBeClaimedAgain() throws Exception {
+        LeaseManager a = newInstance("a", 600);
+        LeaseManager b = newInstance("b", 600);
+        a.claimNext(HOTSPOTS, new HashSet<>(), false);
+        a.release("hotspot0", false);
+
+        assertFalse(b.isLeasedElsewhere("hotspot0"));
+        assertEquals("hotspot0", b.claimNext(HOTSPOTS, new HashSet<>(), false));
+        assertFalse(a.renew("hotspot0"));
+    }
+}
@@ -0,0 +1,81 @@
+package heliumevents;
+
+import org.joda.time.DateTime;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TrawlerTest {
+
+    private static final DateTime NOW = new DateTime(2022, 3, 10, 15, 30);
+
+    private static final DateTime TODAY = new DateTime(2022, 3, 10, 0, 0);
+
+    private static DateTime daysAgo(int days) {
+        return TODAY.minusDays(days);
+    }
+
+    private static DateTime[] checkpoint(DateTime liveFrom, DateTime lastRun, DateTime refreshedAt) {
+        return new DateTime[] { liveFrom, lastRun, refreshedAt };
+    }
+
+    @Test
+    public void liveWindowEndsToday() {
+        assertEquals(TODAY, Trawler.liveWindowStart(NOW, 1));
+        assertEquals(daysAgo(1), Trawler.liveWindowStart(NOW, 2));
+    }
+
+    @Test
+    public void liveHeadCarriesOnWhileItsCheckpointIsInTheWindow() {
+        DateTime windowStart = Trawler.liveWindowStart(NOW, 2);
+
+        assertTrue(Trawler.isInLiveWindow(checkpoint(daysAgo(5), daysAgo(1), daysAgo(1)), windowStart));
+        assertTrue(Trawler.isInLiveWindow(checkpoint(daysAgo(5), TODAY, NOW), windowStart));
+        assertFalse(Trawler.isInLiveWindow(checkpoint(daysAgo(5), daysAgo(2), daysAgo(2)), windowStart));
+        assertFalse(Trawler.isInLiveWindow(null, windowStart));
+    }
+
+    @Test
+    public void lanesHaveMetOnceTheBackfillReachesTheLiveHead() {
+        DateTime[] live = checkpoint(daysAgo(5), daysAgo(3), daysAgo(3));
+
+        assertTrue(Trawler.haveLanesMet(live, daysAgo(5)));
+        assertTrue(Trawler.haveLanesMet(live, daysAgo(3)));
+        assertFalse(Trawler.haveLanesMet(live, daysAgo(6)));
+        assertFalse(Trawler.haveLanesMet(live, null));
+        assertFalse(Trawler.haveLanesMet(null, daysAgo(5)));
+    }
+
+    @Test
+    public void restartedLiveHeadStartsAtTheWindowLeavingAGapForTheBackfill() {
+        DateTime windowStart = Trawler.liveWindowStart(NOW, 2);
+
+        assertEquals(windowStart, Trawler.liveRestartDay(windowStart, daysAgo(100), null));
+        assertEquals(windowStart, Trawler.liveRestartDay(windowStart, daysAgo(100), daysAgo(10)));
+    }
+
+    @Test
+    public void restartedLiveHeadNeverStartsBeforeTheHotspotWasBorn() {
+        DateTime windowStart = Trawler.liveWindowStart(NOW, 7);
+
+        assertEquals(daysAgo(2), Trawler.liveRestartDay(windowStart, daysAgo(2).plusHours(11), null));
+    }
+
+    @Test
+    public void restartedLiveHeadSkipsDaysAlreadyBackfilled() {
+        DateTime windowStart = Trawler.liveWindowStart(NOW, 7);
+
+        // lanes had met at the old live head, so the backfill checkpoint has moved past the window start
+        assertEquals(daysAgo(1), Trawler.liveRestartDay(windowStart, daysAgo(100), daysAgo(1)));
+    }
+
+    @Test
+    public void liveHeadIsCurrentOnceItHasReachedTodayAndWasRefreshedRecently() {
+        assertTrue(Trawler.isLiveHeadCurrent(checkpoint(daysAgo(1), TODAY, NOW.minusMinutes(1)), NOW, 300));
+        assertFalse(Trawler.isLiveHeadCurrent(checkpoint(daysAgo(1), TODAY, NOW.minusMinutes(10)), NOW, 300));
+        assertFalse(Trawler.isLiveHeadCurrent(checkpoint(daysAgo(1), daysAgo(1), NOW.minusMinutes(1)), NOW, 300));
+        assertFalse(Trawler.isLiveHeadCurrent(null, NOW, 300));
+    }
+}